@@ -0,0 +1,60 @@
+package br.com.embole;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded history of chat lines, kept in a ring buffer.  When the
+ * buffer is full, each new line overwrites the oldest one, so memory use
+ * never grows past the line limit however busy the room is.
+ *
+ * Lines are added by the thread that receives them from the network and
+ * collected in batches by the FX thread with takeNewLines().  If the FX
+ * thread falls behind by more than the line limit, the lines it missed
+ * are simply gone; they would have scrolled out of the panel anyway.
+ */
+public class ChatHistory {
+
+    private final String[] lines;
+    private long written;     // Number of lines ever added.
+    private long taken;       // Value of written at the last takeNewLines().
+
+    /**
+     * Constructor.  Create an empty history that keeps at most
+     * lineLimit lines.
+     */
+    ChatHistory(int lineLimit) {
+        if (lineLimit < 1)
+            throw new IllegalArgumentException("The line limit must be positive: " + lineLimit);
+        lines = new String[lineLimit];
+    }
+
+    /**
+     * Return the maximum number of lines kept.
+     */
+    int getLineLimit() {
+        return lines.length;
+    }
+
+    /**
+     * Add a line, overwriting the oldest one if the history is full.
+     */
+    synchronized void add(String line) {
+        lines[(int) (written % lines.length)] = line;
+        written++;
+    }
+
+    /**
+     * Return the lines added since the last call, oldest first.  At most
+     * getLineLimit() lines are returned.
+     */
+    synchronized List<String> takeNewLines() {
+        long from = Math.max(taken, written - lines.length);
+        List<String> newLines = new ArrayList<>((int) (written - from));
+        for (long i = from; i < written; i++)
+            newLines.add(lines[(int) (i % lines.length)]);
+        taken = written;
+        return newLines;
+    }
+
+}  // end class ChatHistory
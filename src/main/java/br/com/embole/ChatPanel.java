@@ -0,0 +1,137 @@
+package br.com.embole;
+
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
+import javafx.scene.control.ListView;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The in-game chat.  Messages are shown in a ListView, which only
+ * creates cells for the rows that are visible, so long sessions stay
+ * cheap to display.  The list never holds more than the line limit of
+ * the ChatHistory; older lines are removed as new ones arrive.
+ *
+ * Messages may be posted from any thread.  They go into the ChatHistory
+ * and at most one Platform.runLater() is outstanding at a time: the FX
+ * thread then takes every line that arrived since the last update and
+ * appends them to the list in a single change.  Messages from the
+ * server are read and written on background threads, never on the FX
+ * thread.
+ */
+public class ChatPanel extends ListView<String> {
+
+    private final ChatHistory history;
+    private final AtomicBoolean updateScheduled = new AtomicBoolean();
+
+    private final ExecutorService sender = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "gekitai-chat-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile DataOutputStream out;   // Null until connected to a server.
+
+    /**
+     * Constructor.  Create an empty panel that shows at most lineLimit
+     * lines.
+     */
+    ChatPanel(int lineLimit) {
+        history = new ChatHistory(lineLimit);
+    }
+
+    /**
+     * Add a line to the panel.  This can be called from any thread.
+     */
+    void post(String line) {
+        history.add(line);
+        if (updateScheduled.compareAndSet(false, true))
+            Platform.runLater(this::update);
+    }
+
+    /**
+     * Send a message typed by the user.  When connected, the message is
+     * sent to the server and shown when the server echoes it back to this
+     * client; GekitaiServer does not pass it on to other clients.
+     * Otherwise it is only shown locally.
+     */
+    void send(String text) {
+        if (text.isBlank())
+            return;
+        DataOutputStream connection = out;
+        if (connection == null) {
+            post("You: " + text);
+            return;
+        }
+        sender.execute(() -> {
+            try {
+                GekitaiServer.writeChat(connection, text);
+                connection.flush();
+            } catch (IOException e) {
+                post("Message not sent: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Connect to the chat of a GekitaiServer.  The connection is made, and
+     * incoming messages are read, on a daemon thread.
+     */
+    void connect(String host, int port) {
+        Thread receiver = new Thread(() -> {
+            try (Socket socket = new Socket(host, port)) {
+                socket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                post("Connected to " + host + ":" + port + ".");
+                while (true) {
+                    byte type = in.readByte();
+                    if (type != GekitaiServer.CHAT)
+                        throw new IOException("Unexpected frame type " + type);
+                    post(in.readUTF());
+                }
+            } catch (EOFException e) {
+                post("Disconnected from the chat.");
+            } catch (IOException e) {
+                post("Chat unavailable: " + e.getMessage());
+            } finally {
+                out = null;
+            }
+        }, "gekitai-chat-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * Append the lines that arrived since the last update, drop the
+     * oldest ones beyond the line limit and scroll to the end.  This is
+     * run on the FX thread.
+     */
+    private void update() {
+        updateScheduled.set(false);
+        List<String> newLines = history.takeNewLines();
+        if (newLines.isEmpty())
+            return;
+        ObservableList<String> items = getItems();
+        int excess = items.size() + newLines.size() - history.getLineLimit();
+        if (excess >= items.size()) {
+            items.setAll(newLines.subList(excess - items.size(), newLines.size()));
+        }
+        else {
+            if (excess > 0)
+                items.remove(0, excess);
+            items.addAll(newLines);
+        }
+        scrollTo(items.size() - 1);
+    }
+
+}  // end class ChatPanel
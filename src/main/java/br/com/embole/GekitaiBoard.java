@@ -1,5 +1,6 @@
 package br.com.embole;
 
+import javafx.application.Platform;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
@@ -8,6 +9,10 @@ import javafx.scene.input.MouseEvent;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
 /**
  * This canvas displays a 320-by-320 checkerboard pattern with
  * a 2-pixel dark red border.  The canvas will be exactly
@@ -42,6 +47,23 @@ public class GekitaiBoard extends Canvas {
     private final Button resignButton;
     private final Button newGameButton;
 
+    private final GekitaiSpectators spectators = new GekitaiSpectators();  // Watchers of this match.
+
+    private static final long COMPUTER_THINK_MILLIS = 1000;  // Time the computer takes for a move.
+
+    private final GekitaiEngine engine = new GekitaiEngine(loadEvaluator(), 8);
+    private int computerPlayer = GekitaiData.EMPTY;  // The player the computer plays for,
+    //    or EMPTY if both players are human.
+
+    private GekitaiEngine.Search computerSearch;  // The search for the computer's move.
+    private GekitaiEngine.Search hintSearch;      // The search for the human's best move.
+    private GekitaiEngine.Search ponderSearch;    // The search for the computer's reply to ponderMove,
+    private GekitaiMove ponderMove;               //    run while the human is thinking.
+    private long ponderStarted;
+    private int hintGeneration;                   // Counts hint searches, so stale hints are ignored.
+    private GekitaiMove lastMove;                 // The move that was made last.
+    private Consumer<String> hintListener = hint -> { };
+
     /**
      * Constructor.  Creates a CheckersData to represent the
      * contents of the checkerboard, and calls doNewGame to
@@ -56,6 +78,53 @@ public class GekitaiBoard extends Canvas {
         doNewGame();
     }
 
+    /**
+     * Return the spectators of this board, so that watchers can be
+     * added to the match.
+     */
+    GekitaiSpectators getSpectators() {
+        return spectators;
+    }
+
+    /**
+     * Return the evaluator for the computer player.  Its weights are read
+     * from the file named by the gekitai.weights property, as written by
+     * GekitaiTuner.  The default weights are used if the property is not
+     * set or the file can't be read.
+     */
+    private static GekitaiEvaluator loadEvaluator() {
+        String weights = System.getProperty("gekitai.weights");
+        if (weights == null)
+            return new GekitaiEvaluator();
+        try {
+            return GekitaiEvaluator.load(Path.of(weights));
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Using the default weights; can't load " + weights + ": " + e.getMessage());
+            return new GekitaiEvaluator();
+        }
+    }
+
+    /**
+     * Let the computer play for the specified player, or for neither
+     * player if the value is GekitaiData.EMPTY.  If it is now the
+     * computer's turn, it starts thinking.
+     */
+    void setComputerPlayer(int player) {
+        computerPlayer = player;
+        stopSearches();
+        if (gameInProgress)
+            startTurn();
+    }
+
+    /**
+     * Set the listener that is given the hints for the human player.  It
+     * is called on the FX thread, with an empty string when there is no
+     * hint to show.
+     */
+    void setHintListener(Consumer<String> hintListener) {
+        this.hintListener = hintListener;
+    }
+
     /**
      * Start a new game.  This method is called when the Board is first
      * created and when the "New Game" button is clicked.  Event handling
@@ -73,22 +142,30 @@ public class GekitaiBoard extends Canvas {
         selectedRow = -1;   // RED has not yet selected a piece to move.
         message.setText("Red:  Make your move.");
         gameInProgress = true;
+        spectators.newGame(board);
         newGameButton.setDisable(true);
         resignButton.setDisable(false);
+        lastMove = null;
         drawBoard();
+        startTurn();
     }
 
     /**
-     * Current player resigns.  Game ends.  Opponent wins.  This method is
-     * called when the user clicks the "Resign" button.  Event handling is
-     * set up in the start() method in the main class.
+     * Current player resigns.  Game ends.  Opponent wins.  When the
+     * computer plays one side, it is always the human who resigns, even
+     * if the button is clicked while the computer is thinking.  This
+     * method is called when the user clicks the "Resign" button.  Event
+     * handling is set up in the start() method in the main class.
      */
     void doResign() {
         if (!gameInProgress) {  // Should be impossible.
             message.setText("There is no game in progress!");
             return;
         }
-        if (currentPlayer == GekitaiData.RED)
+        int resigningPlayer = currentPlayer;
+        if (computerPlayer != GekitaiData.EMPTY)
+            resigningPlayer = (computerPlayer == GekitaiData.BLACK) ? GekitaiData.RED : GekitaiData.BLACK;
+        if (resigningPlayer == GekitaiData.RED)
             gameOver("RED resigns.  BLACK wins.");
         else
             gameOver("BLACK resigns.  RED wins.");
@@ -101,6 +178,7 @@ public class GekitaiBoard extends Canvas {
      * ends at any point in this class.
      */
     void gameOver(String str) {
+        stopSearches();
         message.setText(str);
         newGameButton.setDisable(false);
         resignButton.setDisable(true);
@@ -165,6 +243,12 @@ public class GekitaiBoard extends Canvas {
     void doMakeMove(GekitaiMove move) {
 
         board.makeMove(move);
+        spectators.publishMove(move, board);
+        lastMove = move;
+        if (hintSearch != null) {
+            hintSearch.cancel();
+            hintSearch = null;
+        }
 
             /* If the move was a jump, it's possible that the player has another
              jump.  Check for legal jumps starting from the square that the player
@@ -182,6 +266,7 @@ public class GekitaiBoard extends Canvas {
                 selectedRow = move.getToRow();  // Since only one piece can be moved, select it.
                 selectedCol = move.getToCol();
                 drawBoard();
+                startTurn();
                 return;
             }
         }
@@ -237,9 +322,117 @@ public class GekitaiBoard extends Canvas {
         /* Make sure the board is redrawn in its new state. */
 
         drawBoard();
+        startTurn();
 
     }  // end doMakeMove();
 
+    /**
+     * Start the searches for the player whose turn it is.  If that is the
+     * computer, it searches for its move, reusing the ponder search if the
+     * human just played the predicted move; the move is made on the FX
+     * thread when the search is done.  If it is a human, a hint search is
+     * started and, when it is done, the computer ponders its reply to the
+     * move the hint suggests.
+     */
+    private void startTurn() {
+        if (!gameInProgress)
+            return;
+        if (currentPlayer == computerPlayer) {
+            GekitaiEngine.Search search;
+            if (ponderSearch != null && sameMove(lastMove, ponderMove)) {
+                // Ponder hit.  The search is already running; just give it a deadline.
+                long spent = (System.nanoTime() - ponderStarted) / 1_000_000;
+                search = ponderSearch;
+                search.setDeadline(System.nanoTime()
+                        + Math.max(0, COMPUTER_THINK_MILLIS - spent) * 1_000_000);
+                ponderSearch = null;
+            }
+            else {
+                stopSearches();
+                search = engine.startSearch(board, currentPlayer, legalMoves,
+                        System.nanoTime() + COMPUTER_THINK_MILLIS * 1_000_000, null);
+            }
+            computerSearch = search;
+            hintListener.accept("");
+            search.getResult().whenComplete((analysis, error) -> Platform.runLater(() -> {
+                if (computerSearch != search)
+                    return;  // The game ended or a new search replaced this one.
+                computerSearch = null;
+                doMakeMove(analysis != null ? analysis.bestMove : legalMoves[0]);
+            }));
+        }
+        else {
+            stopSearches();
+            int generation = ++hintGeneration;
+            GekitaiEngine.Search search = engine.startSearch(board, currentPlayer, legalMoves,
+                    GekitaiEngine.NO_DEADLINE, analysis -> Platform.runLater(() -> {
+                        if (generation == hintGeneration && hintSearch != null)
+                            showHint(analysis);
+                    }));
+            hintSearch = search;
+            if (computerPlayer != GekitaiData.EMPTY) {
+                search.getResult().thenAccept(analysis -> Platform.runLater(() -> {
+                    if (hintSearch == search && analysis != null)
+                        startPonder(analysis.bestMove);
+                }));
+            }
+        }
+    }
+
+    /**
+     * Start searching, in the background, the computer's reply to the
+     * move the human is expected to make.  Nothing is pondered if after
+     * that move the human would still be the one to move.
+     */
+    private void startPonder(GekitaiMove predicted) {
+        GekitaiData position = new GekitaiData(board);
+        position.makeMove(predicted);
+        if (predicted.isJump()
+                && position.getLegalJumpsFrom(currentPlayer, predicted.getToRow(), predicted.getToCol()) != null)
+            return;
+        GekitaiMove[] replies = position.getLegalMoves(computerPlayer);
+        if (replies == null)
+            return;
+        ponderMove = predicted;
+        ponderStarted = System.nanoTime();
+        ponderSearch = engine.startSearch(position, computerPlayer, replies, GekitaiEngine.NO_DEADLINE, null);
+    }
+
+    /**
+     * Show the analysis of the hint search.
+     */
+    private void showHint(GekitaiEngine.Analysis analysis) {
+        GekitaiMove move = analysis.bestMove;
+        hintListener.accept(String.format("Hint: (%d,%d) to (%d,%d)%ndepth %d, score %+.2f",
+                move.getFromRow(), move.getFromCol(), move.getToRow(), move.getToCol(),
+                analysis.depth, analysis.score / 100.0));
+    }
+
+    /**
+     * Cancel every search that is running and clear the hint.
+     */
+    private void stopSearches() {
+        if (computerSearch != null)
+            computerSearch.cancel();
+        if (hintSearch != null)
+            hintSearch.cancel();
+        if (ponderSearch != null)
+            ponderSearch.cancel();
+        computerSearch = hintSearch = ponderSearch = null;
+        ponderMove = null;
+        hintListener.accept("");
+    }
+
+    /**
+     * Test whether two moves, either of which may be null, go from and
+     * to the same squares.
+     */
+    private static boolean sameMove(GekitaiMove a, GekitaiMove b) {
+        return a != null && b != null
+                && a.getFromRow() == b.getFromRow() && a.getFromCol() == b.getFromCol()
+                && a.getToRow() == b.getToRow() && a.getToCol() == b.getToCol();
+    }
+
     /**
      * Draw a checkerboard pattern in gray and lightGray.  Draw the
      * checkers.  If a game is in progress, highlight the legal moves.
@@ -327,6 +520,9 @@ public class GekitaiBoard extends Canvas {
         if (!gameInProgress) {
             message.setText("Click \"New Game\" to start a new game.");
         }
+        else if (currentPlayer == computerPlayer) {
+            message.setText("Wait for the computer to move.");
+        }
         else {
             int col = (int)((evt.getX() - 2) / 40);
             int row = (int)((evt.getY() - 2) / 40);
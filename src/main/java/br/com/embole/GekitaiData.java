@@ -31,6 +31,16 @@ public class GekitaiData {
         setUpGame();
     }
 
+    /**
+     * Constructor.  Create a copy of another board, so that moves can
+     * be tried on it without changing the original.
+     */
+    GekitaiData(GekitaiData other) {
+        board = new int[6][6];
+        for (int row = 0; row < 6; row++)
+            System.arraycopy(other.board[row], 0, board[row], 0, 6);
+    }
+
     /**
      * Set up the board with checkers in position for the beginning
      * of a game.  Note that checkers can only be found in squares
@@ -83,6 +93,19 @@ public class GekitaiData {
         board[fromRow][fromCol] = EMPTY;
     }
 
+    /**
+     * Take back a move made with makeMove().  movedPiece is what was on
+     * the move's starting square and capturedPiece what was on the jumped
+     * square (EMPTY if the move is not a jump), both read before the move
+     * was made.  Putting them back undoes any capture or promotion.
+     */
+    void unmakeMove(GekitaiMove move, int movedPiece, int capturedPiece) {
+        board[move.getFromRow()][move.getFromCol()] = movedPiece;
+        board[move.getToRow()][move.getToCol()] = EMPTY;
+        if (move.isJump())
+            board[(move.getFromRow() + move.getToRow()) / 2][(move.getFromCol() + move.getToCol()) / 2] = capturedPiece;
+    }
+
     /**
      * Return an array containing all the legal CheckersMoves
      * for the specified player on the current board.  If the player
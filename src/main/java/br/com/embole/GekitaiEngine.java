@@ -0,0 +1,233 @@
+package br.com.embole;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * The computer player.  An engine searches a position with alpha-beta
+ * search and iterative deepening: it searches to depth 1, then 2, and
+ * so on up to its maximum depth, and reports the best move found at
+ * each depth.  Searches run on background threads, so they can be used
+ * for the computer's own moves, for pondering during the human's turn
+ * and for hints, without blocking the FX thread.
+ *
+ * A running search can be cancelled at any time, or given a deadline.
+ * A search started without a deadline (pondering) can be given one
+ * later, which is how a ponder search is reused when the human plays
+ * the predicted move.
+ */
+public class GekitaiEngine {
+
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private static final int WIN = 1_000_000;  // Score of a position where the opponent has no moves.
+
+    private final GekitaiEvaluator evaluator;
+    private final int maxDepth;
+    private final ExecutorService searchers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "gekitai-engine");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The best move found by a search at one depth.  The score is in
+     * hundredths, from the point of view of the player to move.
+     */
+    static final class Analysis {
+        final GekitaiMove bestMove;
+        final int score;
+        final int depth;
+
+        Analysis(GekitaiMove bestMove, int score, int depth) {
+            this.bestMove = bestMove;
+            this.score = score;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * A search running in the background.  Its result completes with the
+     * analysis of the deepest finished iteration when the search reaches
+     * the maximum depth, runs past its deadline or is cancelled.  The
+     * result is null only if the search was cancelled before depth 1 was
+     * finished.
+     */
+    static final class Search {
+        private volatile boolean cancelled;
+        private volatile long deadline;
+        private volatile Analysis latest;
+        private final CompletableFuture<Analysis> result = new CompletableFuture<>();
+
+        private Search(long deadline) {
+            this.deadline = deadline;
+        }
+
+        /**
+         * Stop the search as soon as possible.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Change the time, as given by System.nanoTime(), at which the
+         * search stops.  The first iteration is always finished, so that
+         * there is a move to play.
+         */
+        void setDeadline(long deadline) {
+            this.deadline = deadline;
+        }
+
+        /**
+         * Return the analysis of the deepest iteration finished so far,
+         * or null if there is none yet.
+         */
+        Analysis getLatest() {
+            return latest;
+        }
+
+        CompletableFuture<Analysis> getResult() {
+            return result;
+        }
+
+        private boolean shouldStop() {
+            return cancelled || (latest != null && System.nanoTime() > deadline);
+        }
+    }
+
+    /**
+     * Thrown inside a search to unwind it when it has to stop.
+     */
+    private static final class SearchStopped extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SearchStopped() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final SearchStopped STOPPED = new SearchStopped();
+
+    /**
+     * Constructor.  Create an engine that uses the evaluator and searches
+     * at most maxDepth moves ahead.
+     */
+    GekitaiEngine(GekitaiEvaluator evaluator, int maxDepth) {
+        this.evaluator = evaluator;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Start searching for the best of the legal moves of the player on a
+     * copy of the board.  The listener, if not null, is called on the
+     * search thread with the analysis of every finished iteration.
+     */
+    Search startSearch(GekitaiData data, int player, GekitaiMove[] legalMoves,
+                       long deadline, Consumer<Analysis> listener) {
+        Search search = new Search(deadline);
+        GekitaiData position = new GekitaiData(data);
+        GekitaiMove[] moves = legalMoves.clone();
+        searchers.execute(() -> {
+            try {
+                for (int depth = 1; depth <= maxDepth; depth++) {
+                    Analysis analysis = searchRoot(search, position, player, moves, depth);
+                    search.latest = analysis;
+                    if (listener != null)
+                        listener.accept(analysis);
+                    if (Math.abs(analysis.score) >= WIN - maxDepth)
+                        break;  // A forced win or loss has been found; deeper searches won't change it.
+                }
+            } catch (SearchStopped e) {
+                // Keep the result of the last finished iteration.
+            } catch (RuntimeException e) {
+                search.result.completeExceptionally(e);
+                return;
+            }
+            search.result.complete(search.latest);
+        });
+        return search;
+    }
+
+    /**
+     * Search every root move to the given depth.  The best move of the
+     * previous iteration is moved to the front of the array first, which
+     * makes alpha-beta cut off much more.
+     */
+    private Analysis searchRoot(Search search, GekitaiData data, int player, GekitaiMove[] moves, int depth) {
+        Analysis previous = search.latest;
+        if (previous != null) {
+            for (int i = 1; i < moves.length; i++) {
+                if (moves[i] == previous.bestMove) {
+                    moves[i] = moves[0];
+                    moves[0] = previous.bestMove;
+                    break;
+                }
+            }
+        }
+        GekitaiMove bestMove = moves[0];
+        int alpha = -WIN - 1;
+        for (GekitaiMove move : moves) {
+            int score = scoreMove(search, data, player, move, depth, alpha, WIN + 1);
+            if (score > alpha) {
+                alpha = score;
+                bestMove = move;
+            }
+        }
+        return new Analysis(bestMove, alpha, depth);
+    }
+
+    /**
+     * Return the score of the position for the player to move, searched
+     * depth moves ahead.  Scores outside alpha..beta are only bounds.
+     */
+    private int negamax(Search search, GekitaiData data, int player, GekitaiMove[] moves,
+                        int depth, int alpha, int beta) {
+        if (search.shouldStop())
+            throw STOPPED;
+        if (moves == null)
+            return -WIN + (maxDepth - depth);  // No moves: the player loses.  Later losses are better.
+        if (depth == 0) {
+            int score = evaluator.evaluate(data);
+            return player == GekitaiData.RED ? score : -score;
+        }
+        for (GekitaiMove move : moves) {
+            int score = scoreMove(search, data, player, move, depth, alpha, beta);
+            if (score > alpha) {
+                alpha = score;
+                if (alpha >= beta)
+                    break;
+            }
+        }
+        return alpha;
+    }
+
+    /**
+     * Make the move, search the resulting position and take the move
+     * back.  If the move is a jump after which the player must continue
+     * jumping, the same player moves again; otherwise it is the
+     * opponent's turn.
+     */
+    private int scoreMove(Search search, GekitaiData data, int player, GekitaiMove move,
+                          int depth, int alpha, int beta) {
+        int movedPiece = data.pieceAt(move.getFromRow(), move.getFromCol());
+        int capturedPiece = move.isJump()
+                ? data.pieceAt((move.getFromRow() + move.getToRow()) / 2, (move.getFromCol() + move.getToCol()) / 2)
+                : GekitaiData.EMPTY;
+        data.makeMove(move);
+        try {
+            if (move.isJump()) {
+                GekitaiMove[] jumps = data.getLegalJumpsFrom(player, move.getToRow(), move.getToCol());
+                if (jumps != null)
+                    return negamax(search, data, player, jumps, depth - 1, alpha, beta);
+            }
+            int opponent = (player == GekitaiData.RED) ? GekitaiData.BLACK : GekitaiData.RED;
+            return -negamax(search, data, opponent, data.getLegalMoves(opponent), depth - 1, -beta, -alpha);
+        } finally {
+            data.unmakeMove(move, movedPiece, capturedPiece);
+        }
+    }
+
+}  // end class GekitaiEngine
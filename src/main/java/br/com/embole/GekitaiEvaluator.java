@@ -0,0 +1,126 @@
+package br.com.embole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The evaluation function used by the computer player.  A position is
+ * described by a few features, each one counted for RED minus the same
+ * count for BLACK, and the evaluation is a weighted sum of the features.
+ * A positive evaluation is good for RED, a negative one for BLACK.
+ *
+ * The sum is in the units of a logistic model: sigmoid(sum) is the
+ * estimated probability that RED wins.  The weights are fitted to
+ * recorded games by GekitaiTuner and can be loaded from the file it
+ * writes.
+ */
+public class GekitaiEvaluator {
+
+        /*  The features, in the order they are stored in a feature array. */
+    static final int
+            MEN = 0,          // Ordinary pieces.
+            KINGS = 1,        // Kings.
+            ADVANCEMENT = 2,  // Rows that the ordinary pieces have advanced.
+            CENTER = 3,       // Pieces on the four central squares of rows 2 and 3.
+            BACK_ROW = 4,     // Ordinary pieces still guarding their own back row.
+            MOBILITY = 5;     // Legal moves available.
+
+    static final int FEATURES = 6;
+
+    static final float[] DEFAULT_WEIGHTS = { 1.0f, 1.6f, 0.05f, 0.1f, 0.1f, 0.05f };
+
+    private final float[] weights;
+
+    /**
+     * Constructor.  Create an evaluator with the default, hand-tuned weights.
+     */
+    GekitaiEvaluator() {
+        this(DEFAULT_WEIGHTS);
+    }
+
+    /**
+     * Constructor.  Create an evaluator with the specified weights, one
+     * per feature.
+     */
+    GekitaiEvaluator(float[] weights) {
+        if (weights.length != FEATURES)
+            throw new IllegalArgumentException("Expected " + FEATURES + " weights but got " + weights.length);
+        this.weights = weights.clone();
+    }
+
+    /**
+     * Create an evaluator with the weights read from a file written by
+     * GekitaiTuner: the weights as numbers separated by white space.
+     */
+    static GekitaiEvaluator load(Path file) throws IOException {
+        String[] tokens = Files.readString(file).trim().split("\\s+");
+        float[] weights = new float[tokens.length];
+        for (int i = 0; i < tokens.length; i++)
+            weights[i] = Float.parseFloat(tokens[i]);
+        return new GekitaiEvaluator(weights);
+    }
+
+    /**
+     * Return a copy of the weights.
+     */
+    float[] getWeights() {
+        return weights.clone();
+    }
+
+    /**
+     * Return the evaluation of the board, in hundredths, from RED's point
+     * of view.
+     */
+    int evaluate(GekitaiData data) {
+        float[] features = new float[FEATURES];
+        computeFeatures(data, features, 0);
+        float sum = 0;
+        for (int i = 0; i < FEATURES; i++)
+            sum += weights[i] * features[i];
+        return Math.round(sum * 100);
+    }
+
+    /**
+     * Store the FEATURES features of the board in the array, starting at
+     * the given offset.  Storing them into a caller-supplied primitive
+     * array lets the tuner pack many positions into one array.
+     */
+    static void computeFeatures(GekitaiData data, float[] features, int offset) {
+        Arrays.fill(features, offset, offset + FEATURES, 0);
+        for (int row = 0; row < 6; row++) {
+            for (int col = 0; col < 6; col++) {
+                int piece = data.pieceAt(row, col);
+                if (piece == GekitaiData.EMPTY)
+                    continue;
+                int sign = (piece == GekitaiData.RED || piece == GekitaiData.RED_KING) ? 1 : -1;
+                boolean center = (row == 2 || row == 3) && col >= 1 && col <= 4;
+                switch (piece) {
+                    case GekitaiData.RED -> {
+                        features[offset + MEN]++;
+                        features[offset + ADVANCEMENT] += 5 - row;  // RED moves up.
+                        if (row == 5)
+                            features[offset + BACK_ROW]++;
+                    }
+                    case GekitaiData.BLACK -> {
+                        features[offset + MEN]--;
+                        features[offset + ADVANCEMENT] -= row;      // BLACK moves down.
+                        if (row == 0)
+                            features[offset + BACK_ROW]--;
+                    }
+                    default -> features[offset + KINGS] += sign;
+                }
+                if (center)
+                    features[offset + CENTER] += sign;
+            }
+        }
+        features[offset + MOBILITY] = count(data.getLegalMoves(GekitaiData.RED))
+                - count(data.getLegalMoves(GekitaiData.BLACK));
+    }
+
+    private static int count(GekitaiMove[] moves) {
+        return moves == null ? 0 : moves.length;
+    }
+
+}  // end class GekitaiEvaluator
@@ -0,0 +1,214 @@
+package br.com.embole;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A load generator for GekitaiServer.  It starts a number of bot clients
+ * that connect to the server over loopback, play real games by choosing
+ * among the legal moves that GekitaiData computes, and now and then send
+ * a chat message.  At the end it prints the connection rate, the move
+ * and chat throughput, and the 50th, 99th and 99.9th percentiles of the
+ * connection time and of the move and chat round-trip times.
+ *
+ * Usage:
+ *     GekitaiLoadGenerator [clients [moves [port [chatEvery [seed]]]]]
+ *
+ * Each bot makes the given number of moves.  It uses its own Random,
+ * seeded from seed and the bot's number, and sends the same seed to the
+ * server in a HELLO frame, so runs with the same arguments play the same
+ * games and do the same amount of work.  The project is
+ * built for Java 17, so every bot has a platform thread of its own; the
+ * default stack size is reduced to keep thousands of them affordable.
+ */
+public class GekitaiLoadGenerator {
+
+    private final int clients;       // Number of bots.
+    private final int moves;         // Moves made by each bot.
+    private final InetSocketAddress server;
+    private final int chatEvery;     // A bot chats once every chatEvery moves; 0 disables chat.
+    private final long seed;
+
+    /**
+     * The numbers collected by one bot.  Each bot fills its own results,
+     * which are merged once every bot has finished.
+     */
+    private static class Results {
+        final LatencyHistogram connect = new LatencyHistogram();
+        final LatencyHistogram move = new LatencyHistogram();
+        final LatencyHistogram chat = new LatencyHistogram();
+        long connectedAt;   // System.nanoTime() when the (last) connection was established.
+        long games;
+        long failures;
+
+        void add(Results other) {
+            connect.add(other.connect);
+            move.add(other.move);
+            chat.add(other.chat);
+            connectedAt = Math.max(connectedAt, other.connectedAt);
+            games += other.games;
+            failures += other.failures;
+        }
+    }
+
+    GekitaiLoadGenerator(int clients, int moves, InetSocketAddress server, int chatEvery, long seed) {
+        this.clients = clients;
+        this.moves = moves;
+        this.server = server;
+        this.chatEvery = chatEvery;
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int moves = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : GekitaiServer.DEFAULT_PORT;
+        int chatEvery = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+        GekitaiLoadGenerator generator = new GekitaiLoadGenerator(clients, moves,
+                new InetSocketAddress("127.0.0.1", port), chatEvery, seed);
+        generator.run();
+    }
+
+    /**
+     * Start every bot, wait for all of them to finish and print a report.
+     */
+    void run() throws InterruptedException {
+        ExecutorService bots = Executors.newFixedThreadPool(clients, runnable -> {
+            Thread thread = new Thread(null, runnable, "gekitai-bot", 256 * 1024);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        List<Future<Results>> futures = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            int id = i;
+            futures.add(bots.submit(() -> play(id)));
+        }
+        Results total = new Results();
+        for (Future<Results> future : futures) {
+            try {
+                total.add(future.get());
+            } catch (Exception e) {
+                total.failures++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        bots.shutdown();
+        report(total, start, elapsed);
+    }
+
+    /**
+     * Play games as bot number id until it has made its moves.  The bot
+     * is RED; the server answers each of its moves with BLACK's moves and
+     * a TURN frame, or with TURN alone when RED must continue jumping.
+     */
+    private Results play(int id) {
+        Results results = new Results();
+        long botSeed = seed * 31 + id;
+        Random random = new Random(botSeed);
+        GekitaiData data = new GekitaiData();
+        long time = System.nanoTime();
+        try (Socket socket = new Socket()) {
+            socket.connect(server);
+            results.connectedAt = System.nanoTime();
+            results.connect.record(results.connectedAt - time);
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeByte(GekitaiServer.HELLO);
+            out.writeLong(botSeed);
+            GekitaiMove[] legalMoves = data.getLegalMoves(GekitaiData.RED);
+            for (int movesMade = 1; movesMade <= moves; movesMade++) {
+                GekitaiMove move = legalMoves[random.nextInt(legalMoves.length)];
+                data.makeMove(move);
+                time = System.nanoTime();
+                GekitaiServer.writeMove(out, move);
+                out.flush();
+                byte type;
+                int replies = 0;
+                while ((type = in.readByte()) == GekitaiServer.MOVE) {
+                    data.makeMove(GekitaiServer.readMove(in));
+                    replies++;
+                }
+                results.move.record(System.nanoTime() - time);
+                if (type == GekitaiServer.TURN) {
+                    // A TURN with no BLACK moves means RED must continue jumping.
+                    legalMoves = (replies == 0 && move.isJump())
+                            ? data.getLegalJumpsFrom(GekitaiData.RED, move.getToRow(), move.getToCol())
+                            : null;
+                    if (legalMoves == null)
+                        legalMoves = data.getLegalMoves(GekitaiData.RED);
+                    if (legalMoves == null)
+                        throw new IOException("The server gave RED a turn without legal moves");
+                }
+                else if (type == GekitaiServer.GAME_OVER) {
+                    data.setUpGame();
+                    legalMoves = data.getLegalMoves(GekitaiData.RED);
+                    results.games++;
+                }
+                else {
+                    throw new IOException("Unexpected frame type " + type);
+                }
+                if (chatEvery > 0 && movesMade % chatEvery == 0) {
+                    time = System.nanoTime();
+                    GekitaiServer.writeChat(out, "bot " + id + ": move " + movesMade);
+                    out.flush();
+                    expect(in, GekitaiServer.CHAT);
+                    in.readUTF();
+                    results.chat.record(System.nanoTime() - time);
+                }
+            }
+        } catch (IOException e) {
+            results.failures++;
+        }
+        return results;
+    }
+
+    /**
+     * Read a frame type and check that it is the expected one.
+     */
+    private static void expect(DataInputStream in, byte expected) throws IOException {
+        byte type = in.readByte();
+        if (type != expected)
+            throw new IOException("Expected frame type " + expected + " but got " + type);
+    }
+
+    /**
+     * Print the rates and the percentiles of every histogram.
+     */
+    private void report(Results total, long startNanos, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        double rampSeconds = Math.max(total.connectedAt - startNanos, 1) / 1e9;
+        System.out.printf("clients: %d, duration: %.1f s, games: %d, failures: %d%n",
+                clients, seconds, total.games, total.failures);
+        System.out.printf("connections: %d in %.2f s (%.1f/s)%n",
+                total.connect.getTotalCount(), rampSeconds, total.connect.getTotalCount() / rampSeconds);
+        System.out.printf("moves: %d (%.1f/s), chats: %d (%.1f/s)%n",
+                total.move.getTotalCount(), total.move.getTotalCount() / seconds,
+                total.chat.getTotalCount(), total.chat.getTotalCount() / seconds);
+        printPercentiles("connect", total.connect);
+        printPercentiles("move rtt", total.move);
+        printPercentiles("chat rtt", total.chat);
+    }
+
+    private static void printPercentiles(String name, LatencyHistogram histogram) {
+        System.out.printf("%-9s p50 %8.1f us   p99 %8.1f us   p999 %8.1f us   max %8.1f us%n", name,
+                histogram.getValueAtPercentile(50) / 1e3,
+                histogram.getValueAtPercentile(99) / 1e3,
+                histogram.getValueAtPercentile(99.9) / 1e3,
+                histogram.getMax() / 1e3);
+    }
+
+}  // end class GekitaiLoadGenerator
@@ -0,0 +1,207 @@
+package br.com.embole;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A small socket server for Gekitai.  Every client that connects plays
+ * RED against the server, which plays BLACK on a board of its own.  The
+ * client sends a move, and the server checks that it is legal and makes
+ * it.  If the move was a jump and RED must continue jumping, the server
+ * answers TURN at once.  Otherwise it answers with its own moves (more
+ * than one if BLACK has to continue jumping) followed by TURN, or by
+ * GAME_OVER when one side has no moves left.  Chat messages are echoed
+ * back to the sender only.
+ *
+ * The protocol is made of frames that start with a one-byte type:
+ *   MOVE       followed by fromRow, fromCol, toRow, toCol (one byte each)
+ *   CHAT       followed by the message, as written by writeUTF()
+ *   GAME_OVER  no payload; the server has set up a new game
+ *   NEW_GAME   no payload; sent by the client to start over, and echoed
+ *              by the server once the board has been set up again
+ *   TURN       no payload; it is RED's turn to move
+ *   HELLO      followed by a long seed; optional, sent by the client
+ *              first so that the server's moves can be reproduced
+ */
+public class GekitaiServer {
+
+    static final byte
+            MOVE = 1,
+            CHAT = 2,
+            GAME_OVER = 3,
+            NEW_GAME = 4,
+            TURN = 5,
+            HELLO = 6;
+
+    static final int DEFAULT_PORT = 5050;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService sessions = Executors.newCachedThreadPool();
+
+    /**
+     * Constructor.  Open the server socket on the specified port.
+     * Clients are not accepted until serve() is called.
+     */
+    GekitaiServer(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 4096);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        GekitaiServer server = new GekitaiServer(port);
+        System.out.println("Gekitai server listening on port " + port);
+        server.serve();
+    }
+
+    /**
+     * Accept clients until the server socket is closed.  Each client
+     * is served by its own thread.
+     */
+    void serve() throws IOException {
+        try {
+            while (true) {
+                Socket socket = serverSocket.accept();
+                sessions.execute(() -> play(socket));
+            }
+        } finally {
+            sessions.shutdownNow();
+        }
+    }
+
+    /**
+     * Play games with one client until it disconnects.
+     */
+    private void play(Socket socket) {
+        GekitaiData data = new GekitaiData();
+        Random random = new Random();
+        GekitaiMove[] redMoves = data.getLegalMoves(GekitaiData.RED);  // The moves RED may make now.
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (true) {
+                byte type = in.readByte();
+                switch (type) {
+                    case MOVE -> {
+                        GekitaiMove move = readMove(in);
+                        if (!isLegal(redMoves, move)) {
+                            data.setUpGame();
+                            redMoves = data.getLegalMoves(GekitaiData.RED);
+                            out.writeByte(GAME_OVER);
+                            break;
+                        }
+                        data.makeMove(move);
+                        if (move.isJump()) {
+                            GekitaiMove[] jumps = data.getLegalJumpsFrom(GekitaiData.RED, move.getToRow(), move.getToCol());
+                            if (jumps != null) {
+                                redMoves = jumps;  // RED must continue jumping.
+                                out.writeByte(TURN);
+                                break;
+                            }
+                        }
+                        if (playBlack(data, random, out))
+                            redMoves = data.getLegalMoves(GekitaiData.RED);
+                        else
+                            redMoves = null;
+                        if (redMoves == null) {
+                            data.setUpGame();
+                            redMoves = data.getLegalMoves(GekitaiData.RED);
+                            out.writeByte(GAME_OVER);
+                        }
+                        else {
+                            out.writeByte(TURN);
+                        }
+                    }
+                    case CHAT -> writeChat(out, in.readUTF());
+                    case NEW_GAME -> {
+                        data.setUpGame();
+                        redMoves = data.getLegalMoves(GekitaiData.RED);
+                        out.writeByte(NEW_GAME);
+                    }
+                    case HELLO -> {
+                        random.setSeed(in.readLong());
+                        continue;  // HELLO has no answer.
+                    }
+                    default -> throw new IOException("Unknown frame type " + type);
+                }
+                out.flush();
+            }
+        } catch (EOFException e) {
+            // The client disconnected.
+        } catch (IOException e) {
+            System.err.println("Session ended: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Play BLACK's turn: a random legal move, then random jumps for as
+     * long as BLACK must continue jumping.  Each move is made on the board
+     * and written to the client.  Returns false if BLACK had no move.
+     */
+    private static boolean playBlack(GekitaiData data, Random random, DataOutputStream out) throws IOException {
+        GekitaiMove[] legalMoves = data.getLegalMoves(GekitaiData.BLACK);
+        if (legalMoves == null)
+            return false;
+        while (true) {
+            GekitaiMove move = legalMoves[random.nextInt(legalMoves.length)];
+            data.makeMove(move);
+            writeMove(out, move);
+            if (!move.isJump())
+                return true;
+            legalMoves = data.getLegalJumpsFrom(GekitaiData.BLACK, move.getToRow(), move.getToCol());
+            if (legalMoves == null)
+                return true;
+        }
+    }
+
+    /**
+     * Test whether the move is one of the given legal moves.  The
+     * array may be null, in which case no move is legal.
+     */
+    private static boolean isLegal(GekitaiMove[] legalMoves, GekitaiMove move) {
+        if (legalMoves == null)
+            return false;
+        for (GekitaiMove legalMove : legalMoves)
+            if (legalMove.getFromRow() == move.getFromRow() && legalMove.getFromCol() == move.getFromCol()
+                    && legalMove.getToRow() == move.getToRow() && legalMove.getToCol() == move.getToCol())
+                return true;
+        return false;
+    }
+
+    /**
+     * Write a MOVE frame.  The stream is not flushed.
+     */
+    static void writeMove(DataOutputStream out, GekitaiMove move) throws IOException {
+        out.writeByte(MOVE);
+        out.writeByte(move.getFromRow());
+        out.writeByte(move.getFromCol());
+        out.writeByte(move.getToRow());
+        out.writeByte(move.getToCol());
+    }
+
+    /**
+     * Read the payload of a MOVE frame whose type byte has already
+     * been read.
+     */
+    static GekitaiMove readMove(DataInputStream in) throws IOException {
+        return new GekitaiMove(in.readByte(), in.readByte(), in.readByte(), in.readByte());
+    }
+
+    /**
+     * Write a CHAT frame.  The stream is not flushed.
+     */
+    static void writeChat(DataOutputStream out, String text) throws IOException {
+        out.writeByte(CHAT);
+        out.writeUTF(text);
+    }
+
+}  // end class GekitaiServer
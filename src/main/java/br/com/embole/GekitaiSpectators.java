@@ -0,0 +1,342 @@
+package br.com.embole;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An object of this class sends the moves of one match to any number
+ * of spectators.  Each move is encoded exactly once, into a small
+ * read-only ByteBuffer (the "delta"), and every spectator channel is
+ * given its own duplicate() of that buffer, so the bytes themselves are
+ * shared and never copied per spectator.  Frames are sliced from blocks
+ * of direct memory, so that channel writes use them without copying.
+ *
+ * Every TAIL moves (and at the start of each game) the whole board is
+ * encoded once into a "snapshot".  A spectator that joins late is sent
+ * the latest snapshot followed by the deltas played since it, in one
+ * gathering write, which is enough to rebuild the current position.
+ *
+ * Publishing a frame only encodes it and appends it to a shared log; it
+ * never touches a spectator channel.  All the writing is done by one
+ * writer thread running a Selector, which also accepts new spectators.
+ * Each spectator remembers the number of the next frame it needs and is
+ * written to whenever its channel is writable (OP_WRITE) and it has
+ * frames to catch up on.  A spectator that falls more than LOG_SIZE
+ * frames behind is disconnected rather than allowed to slow down the
+ * match.
+ */
+public class GekitaiSpectators {
+
+        /*  Wire format.  Every frame starts with its type and the sequence
+            number of the move it describes (0 for a new game).  A delta then
+            carries fromRow, fromCol, toRow, toCol, one byte each.  A snapshot
+            carries the 36 squares of the board, row by row. */
+    static final byte
+            SNAPSHOT = 1,
+            DELTA = 2;
+
+    static final int DELTA_SIZE = 1 + 4 + 4;
+    static final int SNAPSHOT_SIZE = 1 + 4 + 36;
+
+    private static final int TAIL = 32;         // Moves between two snapshots.
+    private static final int LOG_SIZE = 256;    // Frames kept for spectators that are behind.
+    private static final int MAX_GATHER = 64;   // Frames given to one gathering write.
+    private static final int BLOCK_SIZE = 64 * 1024;  // Bytes of direct memory frames are sliced from.
+
+    private final ByteBuffer[] log = new ByteBuffer[LOG_SIZE]; // Frame number f is log[f % LOG_SIZE].
+    private long published;                                    // Number of frames ever published.
+
+    private ByteBuffer snapshot;                            // Latest snapshot, read-only.
+    private final ByteBuffer[] tail = new ByteBuffer[TAIL]; // Deltas played since the snapshot.
+    private int tailLength;
+    private int sequence;                                   // Number of moves in this game.
+    private ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SIZE);  // Frames are sliced from here.
+
+    private volatile Selector selector;  // Null until the writer thread is started.
+    private final ConcurrentLinkedQueue<ServerSocketChannel> newServers = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Spectator> newSpectators = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean newFrames = new AtomicBoolean();
+    private final AtomicInteger spectatorCount = new AtomicInteger();
+
+    /**
+     * One connected spectator.  Apart from its construction in
+     * addSpectator(), it is only used by the writer thread.
+     */
+    private static class Spectator {
+        final SocketChannel channel;
+        ByteBuffer[] writing;  // Buffers being written, or null.  At first, the snapshot and tail.
+        long next;             // Number of the next frame in the log to send.
+        Spectator(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Start a new game.  The snapshot is replaced by one of the given
+     * board, the tail of deltas is cleared and the snapshot is published
+     * to every spectator.
+     */
+    void newGame(GekitaiData data) {
+        synchronized (this) {
+            sequence = 0;
+            takeSnapshot(data);
+            append(snapshot);
+        }
+        wakeUpWriter();
+    }
+
+    /**
+     * Publish the specified move, which has just been made on the given
+     * board, to every spectator.  The move is encoded once; if the tail
+     * is full a new snapshot is taken so late joiners never have to
+     * replay more than TAIL deltas.
+     */
+    void publishMove(GekitaiMove move, GekitaiData data) {
+        synchronized (this) {
+            ByteBuffer delta = allocateFrame(DELTA_SIZE);
+            sequence++;
+            delta.put(DELTA).putInt(sequence)
+                    .put((byte) move.getFromRow()).put((byte) move.getFromCol())
+                    .put((byte) move.getToRow()).put((byte) move.getToCol());
+            delta.flip();
+            delta = delta.asReadOnlyBuffer();
+            append(delta);
+            if (tailLength == TAIL)
+                takeSnapshot(data);
+            else
+                tail[tailLength++] = delta;
+        }
+        wakeUpWriter();
+    }
+
+    /**
+     * Add a spectator.  The channel is switched to non-blocking mode and
+     * handed to the writer thread, which first sends it the latest
+     * snapshot plus the tail of deltas played since.  If the channel
+     * cannot be set up, it is closed.
+     */
+    void addSpectator(SocketChannel channel) throws IOException {
+        try {
+            channel.configureBlocking(false);
+            startWriter();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        Spectator spectator = new Spectator(channel);
+        synchronized (this) {
+            if (snapshot != null) {
+                spectator.writing = new ByteBuffer[1 + tailLength];
+                spectator.writing[0] = snapshot.duplicate();
+                for (int i = 0; i < tailLength; i++)
+                    spectator.writing[1 + i] = tail[i].duplicate();
+            }
+            spectator.next = published;
+        }
+        spectatorCount.incrementAndGet();
+        newSpectators.add(spectator);
+        selector.wakeup();
+    }
+
+    /**
+     * Return the number of spectators currently connected.
+     */
+    int getSpectatorCount() {
+        return spectatorCount.get();
+    }
+
+    /**
+     * Accept spectators on the specified port.  The writer thread adds
+     * every incoming connection with addSpectator().
+     */
+    void listen(int port) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            startWriter();
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        newServers.add(server);
+        selector.wakeup();
+    }
+
+    /**
+     * Encode the board once into a new read-only snapshot and clear
+     * the tail of deltas.
+     */
+    private void takeSnapshot(GekitaiData data) {
+        ByteBuffer buffer = allocateFrame(SNAPSHOT_SIZE);
+        buffer.put(SNAPSHOT).putInt(sequence);
+        for (int row = 0; row < 6; row++)
+            for (int col = 0; col < 6; col++)
+                buffer.put((byte) data.pieceAt(row, col));
+        buffer.flip();
+        snapshot = buffer.asReadOnlyBuffer();
+        tailLength = 0;
+    }
+
+    /**
+     * Return a new frame of the specified size, sliced from the current
+     * block of direct memory; a new block is allocated when it is used up.
+     * Because frames are direct, the gathering writes of the writer thread
+     * send their bytes as they are, instead of copying every duplicate into
+     * a temporary direct buffer.  Must be called while holding the lock.
+     */
+    private ByteBuffer allocateFrame(int size) {
+        if (block.remaining() < size)
+            block = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        ByteBuffer frame = block.slice();
+        frame.limit(size);
+        block.position(block.position() + size);
+        return frame;
+    }
+
+    /**
+     * Append a frame to the log.  Must be called while holding the lock.
+     */
+    private void append(ByteBuffer frame) {
+        log[(int) (published % LOG_SIZE)] = frame;
+        published++;
+    }
+
+    /**
+     * Tell the writer thread, if there is one, that new frames are in the log.
+     */
+    private void wakeUpWriter() {
+        Selector writerSelector = selector;
+        if (writerSelector != null) {
+            newFrames.set(true);
+            writerSelector.wakeup();
+        }
+    }
+
+    /**
+     * Open the selector and start the writer thread, unless that has
+     * already been done.
+     */
+    private synchronized void startWriter() throws IOException {
+        if (selector != null)
+            return;
+        selector = Selector.open();
+        Thread writer = new Thread(this::runWriter, "gekitai-spectators");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * The writer thread.  It registers new server sockets and spectators,
+     * re-enables OP_WRITE for idle spectators when new frames arrive,
+     * and serves every key that is ready.
+     */
+    private void runWriter() {
+        while (true) {
+            try {
+                selector.select();
+                ServerSocketChannel server;
+                while ((server = newServers.poll()) != null)
+                    server.register(selector, SelectionKey.OP_ACCEPT);
+                Spectator spectator;
+                while ((spectator = newSpectators.poll()) != null) {
+                    try {
+                        spectator.channel.register(selector, SelectionKey.OP_WRITE, spectator);
+                    } catch (IOException e) {
+                        close(null, spectator);
+                    }
+                }
+                if (newFrames.getAndSet(false)) {
+                    for (SelectionKey key : selector.keys())
+                        if (key.isValid() && key.attachment() instanceof Spectator)
+                            key.interestOps(SelectionKey.OP_WRITE);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable()) {
+                        SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+                        if (channel != null)
+                            addSpectator(channel);
+                    }
+                    else if (key.isWritable()) {
+                        write(key, (Spectator) key.attachment());
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Spectator connection failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Write to a spectator until it has caught up with the log or its
+     * socket is full.  When it has caught up, OP_WRITE is turned off
+     * until new frames are published.  A spectator whose channel failed
+     * or who has fallen too far behind is disconnected.
+     */
+    private void write(SelectionKey key, Spectator spectator) {
+        try {
+            while (true) {
+                if (spectator.writing == null) {
+                    spectator.writing = nextFrames(spectator);
+                    if (spectator.writing == null) {
+                        key.interestOps(0);
+                        return;
+                    }
+                }
+                spectator.channel.write(spectator.writing);
+                if (spectator.writing[spectator.writing.length - 1].hasRemaining())
+                    return;  // The socket is full; OP_WRITE will say when to go on.
+                spectator.writing = null;
+            }
+        } catch (IOException e) {
+            close(key, spectator);
+        }
+    }
+
+    /**
+     * Return duplicates of the frames the spectator has not been sent
+     * yet, at most MAX_GATHER of them, or null if it has caught up.
+     */
+    private synchronized ByteBuffer[] nextFrames(Spectator spectator) throws IOException {
+        long available = published - spectator.next;
+        if (available == 0)
+            return null;
+        if (available > LOG_SIZE)
+            throw new IOException("Spectator fell too far behind");
+        ByteBuffer[] frames = new ByteBuffer[(int) Math.min(available, MAX_GATHER)];
+        for (int i = 0; i < frames.length; i++)
+            frames[i] = log[(int) ((spectator.next + i) % LOG_SIZE)].duplicate();
+        spectator.next += frames.length;
+        return frames;
+    }
+
+    /**
+     * Disconnect a spectator.  The key may be null if the channel was
+     * never registered.
+     */
+    private void close(SelectionKey key, Spectator spectator) {
+        if (key != null)
+            key.cancel();
+        try {
+            spectator.channel.close();
+        } catch (IOException e) {
+            // Nothing more can be done with this channel.
+        }
+        spectatorCount.decrementAndGet();
+    }
+
+}  // end class GekitaiSpectators
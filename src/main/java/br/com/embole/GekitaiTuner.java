@@ -0,0 +1,341 @@
+package br.com.embole;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * An offline tool that fits the weights of GekitaiEvaluator to recorded
+ * games.  It has three commands:
+ *
+ *   selfplay games.txt count [seed]
+ *       Play count games of the computer against itself and record them.
+ *   extract games.txt features.bin
+ *       Replay the recorded games and write the features of every position,
+ *       together with the result of its game, to a binary file.
+ *   tune features.bin weights.txt [epochs [batchSize [learningRate [start.txt]]]]
+ *       Fit the weights by gradient descent on the logistic loss and
+ *       write them to weights.txt, which GekitaiEvaluator.load() reads.
+ *       The fit starts from the weights in start.txt if it is given, and
+ *       from GekitaiEvaluator.DEFAULT_WEIGHTS otherwise; weights.txt is
+ *       only written, never read.
+ *
+ * A recorded game is one line of text: the result (1 if RED won, 0 if
+ * BLACK won, 0.5 for a draw) followed by the moves, each written as the
+ * four digits fromRow fromCol toRow toCol.  Lines starting with # are
+ * ignored.  extract replays each game from the starting position, RED
+ * first, and rejects any result outside 0..1 and any move that is not
+ * legal for the player to move.
+ *
+ * Neither extract nor tune keeps the data set in memory.  Games are
+ * streamed one line at a time, and the feature file is read one batch at
+ * a time into a reused primitive array, so the data set may be much
+ * larger than the heap.  The gradient of each batch is computed in
+ * parallel by a fork/join pool and reduced before the weights are updated.
+ */
+public class GekitaiTuner {
+
+    private static final int RECORD_FLOATS = GekitaiEvaluator.FEATURES + 1;  // Features, then the result.
+    private static final int RECORD_BYTES = RECORD_FLOATS * Float.BYTES;
+
+    private static final int MAX_PLIES = 200;   // Longer self-play games are recorded as draws.
+    private static final int SKIP_PLIES = 4;    // Opening positions say little about the result.
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 3 && args[0].equals("selfplay")) {
+            long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+            selfPlay(Path.of(args[1]), Integer.parseInt(args[2]), seed);
+        }
+        else if (args.length == 3 && args[0].equals("extract")) {
+            extract(Path.of(args[1]), Path.of(args[2]));
+        }
+        else if (args.length >= 3 && args[0].equals("tune")) {
+            int epochs = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+            int batchSize = args.length > 4 ? Integer.parseInt(args[4]) : 65536;
+            float learningRate = args.length > 5 ? Float.parseFloat(args[5]) : 0.5f;
+            Path start = args.length > 6 ? Path.of(args[6]) : null;
+            tune(Path.of(args[1]), Path.of(args[2]), epochs, batchSize, learningRate, start);
+        }
+        else {
+            System.err.println("Usage: GekitaiTuner selfplay games.txt count [seed]");
+            System.err.println("       GekitaiTuner extract games.txt features.bin");
+            System.err.println("       GekitaiTuner tune features.bin weights.txt [epochs [batchSize [learningRate [start.txt]]]]");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Play games of the computer against itself and append them to the
+     * file.  Each side picks the move with the best evaluation one ply
+     * ahead, except that one move in five is chosen at random so that the
+     * games do not all look alike.
+     */
+    static void selfPlay(Path games, int count, long seed) throws IOException {
+        GekitaiEvaluator evaluator = new GekitaiEvaluator();
+        GekitaiData data = new GekitaiData();
+        Random random = new Random(seed);
+        try (BufferedWriter writer = Files.newBufferedWriter(games,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            StringBuilder moveText = new StringBuilder();
+            for (int game = 0; game < count; game++) {
+                data.setUpGame();
+                moveText.setLength(0);
+                String result = "0.5";
+                int player = GekitaiData.RED;
+                GekitaiMove[] legalMoves = data.getLegalMoves(player);
+                for (int ply = 0; ply < MAX_PLIES; ply++) {
+                    if (legalMoves == null) {
+                        result = (player == GekitaiData.RED) ? "0" : "1";
+                        break;
+                    }
+                    GekitaiMove move = random.nextInt(5) == 0
+                            ? legalMoves[random.nextInt(legalMoves.length)]
+                            : bestMove(evaluator, data, player, legalMoves);
+                    data.makeMove(move);
+                    moveText.append(' ').append(move.getFromRow()).append(move.getFromCol())
+                            .append(move.getToRow()).append(move.getToCol());
+                    if (move.isJump()) {
+                        GekitaiMove[] jumps = data.getLegalJumpsFrom(player, move.getToRow(), move.getToCol());
+                        if (jumps != null) {
+                            legalMoves = jumps;  // The same player must continue jumping.
+                            continue;
+                        }
+                    }
+                    player = (player == GekitaiData.RED) ? GekitaiData.BLACK : GekitaiData.RED;
+                    legalMoves = data.getLegalMoves(player);
+                }
+                writer.write(result);
+                writer.append(moveText);
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Return the legal move after which the evaluation is best for the
+     * player.
+     */
+    private static GekitaiMove bestMove(GekitaiEvaluator evaluator, GekitaiData data,
+                                        int player, GekitaiMove[] legalMoves) {
+        GekitaiMove best = legalMoves[0];
+        int bestScore = Integer.MIN_VALUE;
+        for (GekitaiMove move : legalMoves) {
+            GekitaiData copy = new GekitaiData(data);
+            copy.makeMove(move);
+            int score = evaluator.evaluate(copy);
+            if (player == GekitaiData.BLACK)
+                score = -score;
+            if (score > bestScore) {
+                bestScore = score;
+                best = move;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Replay every recorded game and write one record per position: the
+     * features of the position followed by the result of the game.
+     */
+    static void extract(Path games, Path features) throws IOException {
+        GekitaiData data = new GekitaiData();
+        float[] record = new float[RECORD_FLOATS];
+        long positions = 0;
+        try (BufferedReader reader = Files.newBufferedReader(games);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(features)))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] tokens = line.split("\\s+");
+                float result;
+                try {
+                    result = Float.parseFloat(tokens[0]);
+                } catch (NumberFormatException e) {
+                    result = Float.NaN;
+                }
+                if (!(result >= 0 && result <= 1))  // Also rejects NaN.
+                    throw new IOException(games + ", line " + lineNumber + ": bad result \"" + tokens[0] + "\"");
+                data.setUpGame();
+                int player = GekitaiData.RED;
+                GekitaiMove[] legalMoves = data.getLegalMoves(player);
+                for (int ply = 1; ply < tokens.length; ply++) {
+                    String token = tokens[ply];
+                    GekitaiMove move = isMoveToken(token) ? findMove(legalMoves, token) : null;
+                    if (move == null)
+                        throw new IOException(games + ", line " + lineNumber + ": bad move \"" + token + "\"");
+                    data.makeMove(move);
+                    GekitaiMove[] jumps = move.isJump()
+                            ? data.getLegalJumpsFrom(player, move.getToRow(), move.getToCol())
+                            : null;
+                    if (jumps != null) {
+                        legalMoves = jumps;  // The same player must continue jumping.
+                    }
+                    else {
+                        player = (player == GekitaiData.RED) ? GekitaiData.BLACK : GekitaiData.RED;
+                        legalMoves = data.getLegalMoves(player);
+                    }
+                    if (ply <= SKIP_PLIES)
+                        continue;
+                    GekitaiEvaluator.computeFeatures(data, record, 0);
+                    record[GekitaiEvaluator.FEATURES] = result;
+                    for (float value : record)
+                        out.writeFloat(value);
+                    positions++;
+                }
+            }
+        }
+        System.out.println(positions + " positions written to " + features);
+    }
+
+    /**
+     * Test whether a token is a move written as four digits, each one a
+     * row or column of the board.
+     */
+    private static boolean isMoveToken(String token) {
+        if (token.length() != 4)
+            return false;
+        for (int i = 0; i < 4; i++)
+            if (token.charAt(i) < '0' || token.charAt(i) > '5')
+                return false;
+        return true;
+    }
+
+    /**
+     * Return the move written in the token if it is one of the legal
+     * moves, or null if it is not.  legalMoves may be null, when the
+     * game is already over.
+     */
+    private static GekitaiMove findMove(GekitaiMove[] legalMoves, String token) {
+        if (legalMoves == null)
+            return null;
+        for (GekitaiMove move : legalMoves)
+            if (move.getFromRow() == token.charAt(0) - '0' && move.getFromCol() == token.charAt(1) - '0'
+                    && move.getToRow() == token.charAt(2) - '0' && move.getToCol() == token.charAt(3) - '0')
+                return move;
+        return null;
+    }
+
+    /**
+     * Fit the weights to the positions in the feature file and write them
+     * to the weights file.  The fit starts from the weights in the start
+     * file, or from the default weights if start is null.  The feature
+     * file is read in batches of batchSize positions; the weights are
+     * updated after every batch.
+     */
+    static void tune(Path features, Path weightsFile, int epochs, int batchSize, float learningRate, Path start)
+            throws IOException {
+        float[] weights = (start != null)
+                ? GekitaiEvaluator.load(start).getWeights()
+                : GekitaiEvaluator.DEFAULT_WEIGHTS.clone();
+        float[] batch = new float[batchSize * RECORD_FLOATS];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(batchSize * RECORD_BYTES);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        try (FileChannel channel = FileChannel.open(features, StandardOpenOption.READ)) {
+            for (int epoch = 1; epoch <= epochs; epoch++) {
+                channel.position(0);
+                double loss = 0;
+                long positions = 0;
+                int count;
+                while ((count = readBatch(channel, buffer, batch)) > 0) {
+                    double[] gradient = pool.invoke(new GradientTask(batch, weights, 0, count));
+                    for (int i = 0; i < GekitaiEvaluator.FEATURES; i++)
+                        weights[i] -= learningRate * gradient[i] / count;
+                    loss += gradient[GekitaiEvaluator.FEATURES];
+                    positions += count;
+                }
+                if (positions == 0)
+                    throw new IOException("No positions in " + features);
+                System.out.printf("epoch %d: loss %.6f over %d positions%n", epoch, loss / positions, positions);
+            }
+        }
+        StringBuilder text = new StringBuilder();
+        for (float weight : weights)
+            text.append(weight).append(' ');
+        Files.writeString(weightsFile, text.toString().trim() + System.lineSeparator());
+    }
+
+    /**
+     * Read up to one batch of records from the channel into the array and
+     * return the number of records read.  A partial record at the end of
+     * the file is ignored.
+     */
+    private static int readBatch(FileChannel channel, ByteBuffer buffer, float[] batch) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // Keep reading until the buffer is full or the file ends.
+        }
+        buffer.flip();
+        int count = buffer.remaining() / RECORD_BYTES;
+        buffer.asFloatBuffer().get(batch, 0, count * RECORD_FLOATS);
+        return count;
+    }
+
+    /**
+     * Computes the gradient of the logistic loss over the records lo..hi-1
+     * of a batch.  Ranges larger than THRESHOLD are split in two and the
+     * halves are computed in parallel.  The result holds one partial
+     * derivative per weight, followed by the summed loss.
+     */
+    private static class GradientTask extends RecursiveTask<double[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int THRESHOLD = 4096;
+
+        private final float[] batch;
+        private final float[] weights;
+        private final int lo, hi;
+
+        GradientTask(float[] batch, float[] weights, int lo, int hi) {
+            this.batch = batch;
+            this.weights = weights;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected double[] compute() {
+            if (hi - lo > THRESHOLD) {
+                int mid = (lo + hi) >>> 1;
+                GradientTask left = new GradientTask(batch, weights, lo, mid);
+                left.fork();
+                double[] right = new GradientTask(batch, weights, mid, hi).compute();
+                double[] sum = left.join();
+                for (int i = 0; i < sum.length; i++)
+                    sum[i] += right[i];
+                return sum;
+            }
+            int features = GekitaiEvaluator.FEATURES;
+            double[] gradient = new double[features + 1];
+            for (int r = lo; r < hi; r++) {
+                int base = r * RECORD_FLOATS;
+                double sum = 0;
+                for (int i = 0; i < features; i++)
+                    sum += weights[i] * batch[base + i];
+                double p = 1 / (1 + Math.exp(-sum));
+                double y = batch[base + features];
+                double error = p - y;
+                for (int i = 0; i < features; i++)
+                    gradient[i] += error * batch[base + i];
+                p = Math.min(Math.max(p, 1e-12), 1 - 1e-12);
+                gradient[features] -= y * Math.log(p) + (1 - y) * Math.log(1 - p);
+            }
+            return gradient;
+        }
+    }
+
+}  // end class GekitaiTuner
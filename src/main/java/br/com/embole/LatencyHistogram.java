@@ -0,0 +1,109 @@
+package br.com.embole;
+
+/**
+ * A histogram of non-negative long values (typically latencies in
+ * nanoseconds) in the style of HdrHistogram.  Values below 128 are
+ * counted exactly; larger values are counted in buckets whose width
+ * grows with the value, so every recorded value is known to within
+ * 1/64 (about 1.6%) of its true size while the whole range of a long
+ * fits in a few thousand counters.
+ *
+ * A histogram is not thread-safe.  Each thread should record into its
+ * own histogram; the histograms can then be combined with add().
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;   // 128
+    private static final int HALF = SUB_BUCKETS / 2;                // 64
+
+    private final long[] counts = new long[SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * HALF];
+    private long totalCount;
+    private long max;
+
+    /**
+     * Record one occurrence of the specified value.  Negative values
+     * are recorded as 0.
+     */
+    void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts[indexOf(value)]++;
+        totalCount++;
+        if (value > max)
+            max = value;
+    }
+
+    /**
+     * Add all the values recorded in another histogram to this one.
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++)
+            counts[i] += other.counts[i];
+        totalCount += other.totalCount;
+        if (other.max > max)
+            max = other.max;
+    }
+
+    /**
+     * Return the number of values recorded.
+     */
+    long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Return the largest value recorded, or 0 if there are none.
+     */
+    long getMax() {
+        return max;
+    }
+
+    /**
+     * Return the value below or at which the given percentage (for
+     * example 99.9) of the recorded values fall.  The answer is the
+     * highest value that shares a bucket with that value, so it is never
+     * lower than the true percentile.  Returns 0 if nothing was recorded.
+     */
+    long getValueAtPercentile(double percentile) {
+        if (totalCount == 0)
+            return 0;
+        long target = (long) Math.ceil(totalCount * Math.min(percentile, 100.0) / 100.0);
+        if (target < 1)
+            target = 1;
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target)
+                return Math.min(highestValueAt(i), max);
+        }
+        return max;
+    }
+
+    /**
+     * Return the counter that holds the value.  Values below SUB_BUCKETS
+     * have a counter each.  Above that, a value whose highest set bit is
+     * at position SUB_BUCKET_BITS - 1 + shift shares its counter with the
+     * other values that have the same top SUB_BUCKET_BITS bits.
+     */
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int shift = (64 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift);   // Between HALF and SUB_BUCKETS - 1.
+        return SUB_BUCKETS + (shift - 1) * HALF + (subBucket - HALF);
+    }
+
+    /**
+     * Return the highest value that is counted in the specified counter.
+     */
+    private static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF + HALF;
+        long lowest = subBucket << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+}  // end class LatencyHistogram
@@ -6,11 +6,14 @@ import javafx.scene.control.TextArea;
 import javafx.stage.Stage;
 import javafx.scene.layout.Pane;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 
+import java.io.IOException;
+
 
 
 /**
@@ -25,9 +28,13 @@ public class Main extends Application {
     private Button resignButton;
     private Button sendMessageButton;
     private Label message;
-    private TextArea dialog;
+    private Label hint;
+    private CheckBox computerCheckBox;
+    private ChatPanel dialog;
     private TextArea messageInput;
 
+    private static final int DEFAULT_CHAT_LINES = 500;  // Lines kept in the chat panel.
+
     public static void main(String[] args) {
         launch(args);
     }
@@ -55,23 +62,75 @@ public class Main extends Application {
         sendMessageButton = new Button("Send message");
 
         board = new GekitaiBoard(message, newGameButton, resignButton); // a subclass of Canvas, defined below
+
+        /* Create the label that shows hints, and the check box that lets
+         * the computer play Black.  Hints are computed in the background
+         * and given to the label on the FX thread. */
+
+        hint = new Label();
+        hint.setWrapText(true);
+        hint.setPrefWidth(170);
+        board.setHintListener(hint::setText);
+        computerCheckBox = new CheckBox("Computer plays Black");
         board.drawBoard();  // draws the content of the checkerboard
 
-        dialog = new TextArea();
+        /* If a spectator port was given, let watchers follow the match. */
+
+        Integer spectatorPort = Integer.getInteger("gekitai.spectatorPort");
+        if (spectatorPort != null) {
+            try {
+                board.getSpectators().listen(spectatorPort);
+            } catch (IOException e) {
+                message.setText("Spectators disabled: " + e.getMessage());
+            }
+        }
+
+        int chatLines = Integer.getInteger("gekitai.chatLines", DEFAULT_CHAT_LINES);
+        dialog = new ChatPanel(chatLines > 0 ? chatLines : DEFAULT_CHAT_LINES);
+        if (chatLines <= 0)
+            dialog.post("gekitai.chatLines must be positive; keeping " + DEFAULT_CHAT_LINES + " lines.");
         messageInput = new TextArea();
 
+        /* If a chat server was given as host:port, join its chat.  If the
+         * value can't be understood, say so in the chat and stay local. */
+
+        String chatServer = System.getProperty("gekitai.chatServer");
+        if (chatServer != null) {
+            int colon = chatServer.lastIndexOf(':');
+            int port = -1;
+            if (colon > 0) {
+                try {
+                    port = Integer.parseInt(chatServer.substring(colon + 1));
+                } catch (NumberFormatException e) {
+                    // Reported below.
+                }
+            }
+            if (port > 0 && port <= 65535)
+                dialog.connect(chatServer.substring(0, colon), port);
+            else
+                dialog.post("gekitai.chatServer must be host:port, not \"" + chatServer + "\"; chat is local only.");
+        }
+
         /* Set up ActionEvent handlers for the buttons and a MousePressed handler
          * for the board.  The handlers call instance methods in the board object. */
 
         newGameButton.setOnAction( e -> board.doNewGame() );
         resignButton.setOnAction( e -> board.doResign() );
         board.setOnMousePressed( e -> board.mousePressed(e) );
+        computerCheckBox.setOnAction( e -> board.setComputerPlayer(
+                computerCheckBox.isSelected() ? GekitaiData.BLACK : GekitaiData.EMPTY) );
+        sendMessageButton.setOnAction( e -> {
+            dialog.send(messageInput.getText());
+            messageInput.clear();
+        });
 
         /* Set the location of each child by calling its relocate() method */
 
         board.relocate(20,20);
         newGameButton.relocate(370, 120);
         resignButton.relocate(370, 200);
+        computerCheckBox.relocate(370, 40);
+        hint.relocate(370, 260);
         message.relocate(20, 370);
         dialog.relocate(20, 400);
         messageInput.relocate(20, 600);
@@ -99,8 +158,9 @@ public class Main extends Application {
 
         /* Add the child nodes to the Pane and set up the rest of the GUI */
 
-        root.getChildren().addAll(board, newGameButton, resignButton, message, dialog, messageInput, sendMessageButton);
+        root.getChildren().addAll(board, newGameButton, resignButton, computerCheckBox, hint, message, dialog, messageInput, sendMessageButton);
         root.setStyle("-fx-background-color: lightblue; -fx-border-width:3;");
+        dialog.setStyle("-fx-pref-height: 180px; -fx-pref-width: 510px;");
         messageInput.setStyle("-fx-pref-height: 40px; -fx-pref-width: 370px;");
         Scene scene = new Scene(root);
         stage.setScene(scene);